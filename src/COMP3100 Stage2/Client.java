@@ -7,30 +7,89 @@ public class Client extends TCPService {
 
     private List<Record> records;
 
+    private ServerTable servers;
+
+    private QueueModel queues;
+
+    private QueryPlanner planner;
+
+    private SlaPolicy sla;
+
+    private PerformanceReport report;
+
+    private String reportPrefix;
+
     private JOBNCmd job;
 
     private int dataLength;
 
+    private int recordLength;
+
+    private int mode;
+
     public static final int LRR = 0;
     public static final int FF = 1;
     public static final int FC = 2;
+    public static final int SLA = 3;
 
     public Client() {
         // connect the ip address and port
         super("127.0.0.1", 50000);
         System.out.println("client version 1.3");
         records = new ArrayList<>();
+        servers = new ServerTable();
+        queues = new QueueModel();
+        planner = new QueryPlanner();
+        sla = new SlaPolicy(SlaPolicy.DEFAULT_CLASSES);
+        report = new PerformanceReport();
+        reportPrefix = "report";
+        mode = FF;
     }
 
     public static void main(String[] args) {
         try {
             Client client = new Client();
+            client.parseArgs(args);
             client.run();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * -a lrr|ff|fc|sla    scheduling algorithm, default ff
+     * -sla classes        job class of sla, e.g. 100:300,1000:3000,*:20000
+     *                     each class is maximum estRuntime:turnaround target, sorted by maximum estRuntime
+     * -r prefix           file name prefix of the end of run report, default report
+     * -c file             ds-system.xml for bootup time and hourly rate, default ds-system.xml
+     */
+    public void parseArgs(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("-a")) {
+                switch (args[i + 1].toLowerCase()) {
+                    case "lrr":
+                        mode = LRR;
+                        break;
+                    case "fc":
+                        mode = FC;
+                        break;
+                    case "sla":
+                        mode = SLA;
+                        break;
+                    default:
+                        mode = FF;
+                }
+            } else if (args[i].equals("-sla")) {
+                sla = new SlaPolicy(args[i + 1]);
+            } else if (args[i].equals("-r")) {
+                reportPrefix = args[i + 1];
+            } else if (args[i].equals("-c")) {
+                servers.loadSystem(args[i + 1]);
+            }
+        }
+        if (!servers.isSystemLoaded()) servers.loadSystem("ds-system.xml");
+    }
+
     @Override
     public void run() {
         String request = "";
@@ -41,13 +100,26 @@ public class Client extends TCPService {
         while (!(request = getJob(request)).startsWith("NONE")) {
             // if not a job, skip this loop once
             if (request.startsWith("JOBN")) {
-                // get data
-                getCapable(request);
-
-                // get computer list and scheduled a job
-                scheduleJob(request, getServerList(request), FF);
+                // get data and computer list, then scheduled a job
+                scheduleJob(request, queryServerList(request, mode), mode);
             }
             // Done a job here
+            else if (request.startsWith("JCPL")) {
+                // the job is still in the queue model until it completes there
+                report.complete(queues, request);
+                if (mode == SLA) sla.complete(queues, request);
+                queues.complete(servers, request);
+            }
+            // jobs of a failed server are killed and submitted again, a recovered server is inactive
+            else if (request.startsWith("RESF") || request.startsWith("RESR")) {
+                String[] info = request.split(" ");
+                int row = servers.findRow(info[1], Integer.parseInt(info[2]));
+                if (request.startsWith("RESF")) report.fail(row, Integer.parseInt(info[3]));
+                if (row >= 0) {
+                    servers.setState(row, request.startsWith("RESF") ? ServerTable.UNAVAILABLE : ServerTable.INACTIVE);
+                    queues.clear(row);
+                }
+            }
         }
 
         // QUIT
@@ -66,53 +138,154 @@ public class Client extends TCPService {
         return readMessage(request);
     }
 
-    public void getCapable(String request) {
+    private void getServers(String request, String query) {
+        sendMessage("GETS " + query);
+        String[] data = readMessage(request).split(" ");
+        this.dataLength = Integer.parseInt(data[1]);
+        this.recordLength = Integer.parseInt(data[2]);
+    }
+
+    /**
+     * get the server list of the job, FF asks the query planner which GETS to use
+     *
+     * @param request JOBN message
+     * @param mode    scheduling algorithm
+     * @return server table, the view is the server list of the job
+     */
+    public ServerTable queryServerList(String request, int mode) {
         job = new JOBNCmd(request);
-        sendMessage("GETS Capable " + job.getJobDetail());
-        this.dataLength = Integer.parseInt(readMessage(request).split(" ")[1]);
+        // estimate the wait of each server at the time the job is submitted
+        queues.setTime(Integer.parseInt(job.getSubmitTime()));
+
+        if (mode != FF) {
+            getServers(request, "Capable " + job.getJobDetail());
+            return getServerList(request);
+        }
+
+        int cores = Integer.parseInt(job.getCore());
+        int memory = Integer.parseInt(job.getMemory());
+        int disk = Integer.parseInt(job.getDisk());
+
+        // learn all the server at the first job, the local state start from here
+        if (!servers.isComplete()) {
+            getServers(request, "All");
+            getServerList(request);
+            servers.markComplete();
+            planner.recordAll(servers.getViewSize(), recordLength);
+        }
+
+        // the model cannot answer while a server that could run the job is drifted,
+        // and a busy one is never in the view of GETS Avail, so rebuild a few of them from LSTJ first
+        reconcileCapable(servers, cores, memory, disk);
+
+        int capable = servers.countCapable(cores, memory, disk);
+        int strategy = planner.plan(servers, queues, cores, memory, disk);
+        if (strategy == QueryPlanner.LOCAL) {
+            planner.record(strategy, 0, capable, recordLength);
+            return servers;
+        }
+
+        if (strategy == QueryPlanner.AVAIL) {
+            long bytes = getNumOfBytes();
+            getServers(request, "Avail " + job.getJobDetail());
+            getServerList(request);
+            if (servers.getViewSize() > 0) {
+                planner.record(strategy, servers.getViewSize(), capable, recordLength);
+                return servers;
+            }
+            planner.recordAvailMiss(getNumOfBytes() - bytes);
+        }
+
+        getServers(request, "Capable " + job.getJobDetail());
+        getServerList(request);
+        planner.record(QueryPlanner.CAPABLE, servers.getViewSize(), capable, recordLength);
+        return servers;
     }
 
-    public List<ServerType> getServerList(String request) {
-        List<ServerType> allServerTypes = new ArrayList<>();
-        List<ServerType> serverTypes = new ArrayList<>();
+    public ServerTable getServerList(String request) {
         sendMessage("OK");
+        // no record, the server reply "." directly
+        if (dataLength == 0) {
+            servers.beginView();
+            readMessage(request);
+            return servers;
+        }
 
-        // receive the record of server type
+        // update the server table in place with the record of server
+        servers.beginView();
         for (int i = 0; i < dataLength; i++) {
-            ServerType st = new ServerType(readMessage(request));
-            if (serverTypes.size() > 0 && !serverTypes.get(0).isSameType(st)) {
-                allServerTypes.addAll(serverTypes);
-                // if did not has the server type record, add into records
-                if (records.stream().noneMatch(r -> r.isSameType(serverTypes.get(0).getType()))) {
-                    records.add(new Record(serverTypes));
-                }
-                serverTypes.clear();
+            servers.update(readMessage(request));
+        }
+
+        // the queue model drifted if the number of job is not the same as ds-server
+        queues.check(servers);
+
+        // if did not has the server type record, add into records
+        for (int i = 0; i < servers.getViewSize(); i++) {
+            int row = servers.getViewRow(i);
+            String type = servers.getType(row);
+            if (records.stream().noneMatch(r -> r.isSameType(type))) {
+                records.add(new Record(type, servers.getNumOfServer(row), servers.getCores(row)));
             }
-            serverTypes.add(st);
+        }
 
+        sendMessage("OK");
+        readMessage(request);
+
+        return servers;
+    }
+
+    /**
+     * rebuild the queue of the drifted server in the view from LSTJ
+     */
+    private void reconcileQueues(ServerTable table) {
+        for (int i = 0; i < table.getViewSize(); i++) {
+            int row = table.getViewRow(i);
+            if (queues.isDrifted(row)) reconcile(table, row);
         }
+    }
 
-        allServerTypes.addAll(serverTypes);
-        // if did not has the server type record, add into records
-        if (records.stream().noneMatch(r -> r.isSameType(serverTypes.get(0).getType()))) {
-            records.add(new Record(serverTypes));
+    /**
+     * rebuild the queue of up to QueryPlanner.MAX_RECONCILE drifted server that could run the job from LSTJ
+     */
+    private void reconcileCapable(ServerTable table, int jobCores, int jobMemory, int jobDisk) {
+        int count = 0;
+        for (int row = 0; row < table.size() && count < QueryPlanner.MAX_RECONCILE; row++) {
+            if (queues.isDrifted(row) && table.isCapable(row, jobCores, jobMemory, jobDisk)) {
+                reconcile(table, row);
+                count++;
+            }
         }
+    }
 
+    private void reconcile(ServerTable table, int row) {
+        String request = "";
+        long bytes = getNumOfBytes();
+        sendMessage("LSTJ " + table.getType(row) + " " + table.getServerId(row));
+        int numOfJob = Integer.parseInt(readMessage(request).split(" ")[1]);
         sendMessage("OK");
+
+        List<String> lines = new ArrayList<>();
+        for (int j = 0; j < numOfJob; j++) {
+            lines.add(readMessage(request));
+        }
+        // no record, the server reply "." directly
+        if (numOfJob > 0) sendMessage("OK");
         readMessage(request);
 
-        return allServerTypes;
+        queues.rebuild(table, row, lines);
+        planner.recordReconcile(getNumOfBytes() - bytes);
     }
 
     /**
-     * get the next server type id from list
+     * get the next server type id from table
      *
-     * @param list the lagest server type list
+     * @param table the server table, the last GETS result is the view
      * @return server type
      */
-    private String getNextServerTypeAndIdFromRecord(List<ServerType> list, int mode) {
+    private String getNextServerTypeAndIdFromRecord(ServerTable table, int mode) {
         List<Record> newRecords = records.stream()
-                .filter(r -> r.isTypeInList(list))
+                .filter(r -> r.isTypeInView(table))
                 .collect(Collectors.toList());
 
         // algorithm design start from FC
@@ -122,24 +295,25 @@ public class Client extends TCPService {
                     .getScheduleServer(mode);
         }
 
+        // place the job to meet the turnaround target of its class
+        if (mode == SLA) {
+            reconcileQueues(table);
+            int row = sla.choose(table, queues, job);
+            if (row >= 0) return table.getType(row) + " " + table.getServerId(row);
+        }
+
         // Stage 2 algorithm
         if (mode == FF) {
-            Optional<ServerType> st = list.stream()
-                    .filter(serverType -> !(Integer.parseInt(serverType.getRunning()) > 0
-                            && Integer.parseInt(serverType.getScheduled()) > 0)
-                            && serverType.getFitnessValue(job) >= 0)
-                    .min(Comparator.comparing(serverType -> serverType.getFitnessValue(job)));
-
-            if (st.isPresent()) return st.get().getType() + " " + st.get().getSystemId();
+            int jobCores = Integer.parseInt(job.getCore());
+            int jobMemory = Integer.parseInt(job.getMemory());
+            int jobDisk = Integer.parseInt(job.getDisk());
+            reconcileQueues(table);
 
-            st = list.stream()
-                    .filter(serverType -> serverType.getFitnessValue(job) >= 0 && serverType.isActive())
-                    .min(Comparator.comparing(serverType -> serverType.getFitnessValue(job)));
+            int row = queues.findBestFit(table, jobCores, jobMemory, jobDisk);
+            if (row >= 0) return table.getType(row) + " " + table.getServerId(row);
 
-            if (st.isPresent()) return st.get().getType() + " " + st.get().getSystemId();
-
-            st = list.stream().max(Comparator.comparing(serverType -> serverType.getFitnessValue(job)));
-            if (st.isPresent()) return st.get().getType() + " " + st.get().getSystemId();
+            row = queues.findShortestWait(table, jobCores, jobMemory, jobDisk);
+            if (row >= 0) return table.getType(row) + " " + table.getServerId(row);
         }
 
         // confirm no error
@@ -148,20 +322,31 @@ public class Client extends TCPService {
                 .getScheduleServer(mode);
     }
 
-    public void scheduleJob(String request, List<ServerType> list, int mode) {
+    public void scheduleJob(String request, ServerTable table, int mode) {
         if (job == null) {
             System.out.println("System Error: Job is null");
             System.exit(1);
         }
-        String schedule = getNextServerTypeAndIdFromRecord(list, mode);
+        String schedule = getNextServerTypeAndIdFromRecord(table, mode);
         sendMessage("SCHD " + job.getJobId() + " " + schedule);
         while (!(request = readMessage(request)).startsWith("OK")) {
             // Empty
         }
+
+        // keep the local state of the server up to date
+        String[] info = schedule.split(" ");
+        int row = table.findRow(info[0], Integer.parseInt(info[1]));
+        report.schedule(table, row, job);
+        queues.schedule(table, row, job);
     }
 
     @Override
     public void close(String request) {
+        if (planner.getNumOfJob() > 0) System.out.println(planner.getSummary());
+        if (mode == SLA) System.out.println(sla.getSummary());
+        System.out.println(queues.getSummary());
+        System.out.println(report.getSummary(servers));
+        report.write(servers, reportPrefix);
         sendMessage("QUIT");
         super.close(readMessage(request));
         System.exit(1);
@@ -175,6 +360,8 @@ abstract class TCPService {
 
     private String ipAddress;
     private int port;
+    // bytes sent and received
+    private long numOfBytes;
 
     public TCPService(String ip, int port) {
         this.ipAddress = ip;
@@ -195,6 +382,7 @@ abstract class TCPService {
     public String readMessage(String request) {
         try {
             request = br.readLine();
+            if (request != null) numOfBytes += request.length() + 1;
             System.out.println("message from server: " + request);
             return request;
         } catch (Exception e) {
@@ -206,8 +394,10 @@ abstract class TCPService {
 
     public void sendMessage(String message) {
         try {
-            dos.write((message + "\n").getBytes());
+            byte[] bytes = (message + "\n").getBytes();
+            dos.write(bytes);
             dos.flush();
+            numOfBytes += bytes.length;
             System.out.println("send message to server : " + message);
         } catch (Exception e) {
             e.printStackTrace();
@@ -233,79 +423,1325 @@ abstract class TCPService {
     public int getPort() {
         return port;
     }
+
+    public long getNumOfBytes() {
+        return numOfBytes;
+    }
 }
 
-class ServerType {
-    private String type;
-    private String systemId;
-    private String active;
-    private String bootupTime;
-    private int cores;
-    private String memory;
-    private String disk;
-    private String scheduled;
-    private String running;
+class ServerTable {
+    public static final int INACTIVE = 0;
+    public static final int BOOTING = 1;
+    public static final int IDLE = 2;
+    public static final int ACTIVE = 3;
+    public static final int UNAVAILABLE = 4;
+
+    // bootup time of a server type not found in ds-system.xml
+    public static final int DEFAULT_BOOTUP_TIME = 60;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // interned server type, the type id is the index of typeNames
+    private Map<String, Integer> typeIds;
+    private List<String> typeNames;
+    // row of each server, rowOfServer[typeId][serverId], -1 if not seen yet
+    private int[][] rowOfServer;
+    private int[] numOfServer;
+
+    // one column per field of a GETS record
+    private int size;
+    private int[] typeId;
+    private int[] serverId;
+    private int[] state;
+    private int[] cores;
+    private int[] memory;
+    private int[] disk;
+    private int[] waiting;
+    private int[] running;
+
+    // largest resource seen of each server type
+    private int[] typeCores;
+    private int[] typeMemory;
+    private int[] typeDisk;
+    // from ds-system.xml, -1 if not found
+    private int[] typeBootupTime;
+    private double[] typeHourlyRate;
+    private boolean systemLoaded;
+    // true after every server has been seen, i.e. after GETS All
+    private boolean complete;
+
+    // rows returned by the last GETS
+    private int[] view;
+    private int viewSize;
+    private boolean[] typeInView;
+
+    public ServerTable() {
+        typeIds = new HashMap<>();
+        typeNames = new ArrayList<>();
+        rowOfServer = new int[0][];
+        numOfServer = new int[0];
+        typeInView = new boolean[0];
+        typeCores = new int[0];
+        typeMemory = new int[0];
+        typeDisk = new int[0];
+        typeBootupTime = new int[0];
+        typeHourlyRate = new double[0];
+
+        typeId = new int[INITIAL_CAPACITY];
+        serverId = new int[INITIAL_CAPACITY];
+        state = new int[INITIAL_CAPACITY];
+        cores = new int[INITIAL_CAPACITY];
+        memory = new int[INITIAL_CAPACITY];
+        disk = new int[INITIAL_CAPACITY];
+        waiting = new int[INITIAL_CAPACITY];
+        running = new int[INITIAL_CAPACITY];
+        view = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * start a new view, call it before reading the records of a GETS
+     */
+    public void beginView() {
+        viewSize = 0;
+        Arrays.fill(typeInView, false);
+    }
 
-    public ServerType(String line) {
+    /**
+     * update the row of the server in place, insert it if not seen before
+     *
+     * @param line one record of GETS
+     * @return row of the server
+     */
+    public int update(String line) {
         String[] info = line.split(" ");
         int index = 0;
-        type = info[index++];
-        systemId = info[index++];
-        active = info[index++];
-        bootupTime = info[index++];
-        cores = Integer.parseInt(info[index++]);
-        memory = info[index++];
-        disk = info[index++];
-        scheduled = info[index++];
-        running = info[index];
+        int tid = internType(info[index++]);
+        int sid = Integer.parseInt(info[index++]);
+        int row = getOrAddRow(tid, sid);
+
+        state[row] = parseState(info[index++]);
+        // curStartTime is not used
+        index++;
+        cores[row] = Integer.parseInt(info[index++]);
+        memory[row] = Integer.parseInt(info[index++]);
+        disk[row] = Integer.parseInt(info[index++]);
+        waiting[row] = Integer.parseInt(info[index++]);
+        running[row] = Integer.parseInt(info[index]);
+
+        typeCores[tid] = Math.max(typeCores[tid], cores[row]);
+        typeMemory[tid] = Math.max(typeMemory[tid], memory[row]);
+        typeDisk[tid] = Math.max(typeDisk[tid], disk[row]);
+        addToView(row);
+        return row;
     }
 
-    public String getType() {
-        return type;
+    /**
+     * number of server that GETS Capable would return
+     */
+    public int countCapable(int jobCores, int jobMemory, int jobDisk) {
+        int count = 0;
+        for (int tid = 0; tid < typeNames.size(); tid++) {
+            if (typeCores[tid] >= jobCores && typeMemory[tid] >= jobMemory && typeDisk[tid] >= jobDisk) {
+                count += numOfServer[tid];
+            }
+        }
+        return count;
+    }
+
+    public int findRow(String type, int sid) {
+        Integer tid = typeIds.get(type);
+        if (tid == null || sid >= rowOfServer[tid].length) return -1;
+        return rowOfServer[tid][sid];
+    }
+
+    public void addToView(int row) {
+        if (viewSize == view.length) {
+            view = Arrays.copyOf(view, view.length * 2);
+        }
+        view[viewSize++] = row;
+        typeInView[typeId[row]] = true;
+    }
+
+    /**
+     * read the resource, bootupTime and hourlyRate of each server type
+     *
+     * @param path path of ds-system.xml
+     */
+    public void loadSystem(String path) {
+        File file = new File(path);
+        if (!file.isFile()) return;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.contains("<server ")) continue;
+                String type = getAttribute(line, "type");
+                if (type == null) continue;
+
+                int tid = internType(type);
+                String value;
+                if ((value = getAttribute(line, "cores")) != null) {
+                    typeCores[tid] = Math.max(typeCores[tid], Integer.parseInt(value));
+                }
+                if ((value = getAttribute(line, "memory")) != null) {
+                    typeMemory[tid] = Math.max(typeMemory[tid], Integer.parseInt(value));
+                }
+                if ((value = getAttribute(line, "disk")) != null) {
+                    typeDisk[tid] = Math.max(typeDisk[tid], Integer.parseInt(value));
+                }
+                if ((value = getAttribute(line, "bootupTime")) != null) {
+                    typeBootupTime[tid] = Integer.parseInt(value);
+                }
+                if ((value = getAttribute(line, "hourlyRate")) != null) {
+                    typeHourlyRate[tid] = Double.parseDouble(value);
+                    systemLoaded = true;
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String getAttribute(String line, String name) {
+        int start = line.indexOf(" " + name + "=\"");
+        if (start < 0) return null;
+        start += name.length() + 3;
+        return line.substring(start, line.indexOf('"', start));
     }
 
-    public String getSystemId() {
-        return systemId;
+    private int internType(String type) {
+        Integer id = typeIds.get(type);
+        if (id != null) return id;
+
+        id = typeNames.size();
+        typeIds.put(type, id);
+        typeNames.add(type);
+        rowOfServer = Arrays.copyOf(rowOfServer, id + 1);
+        rowOfServer[id] = new int[0];
+        numOfServer = Arrays.copyOf(numOfServer, id + 1);
+        typeInView = Arrays.copyOf(typeInView, id + 1);
+        typeCores = Arrays.copyOf(typeCores, id + 1);
+        typeMemory = Arrays.copyOf(typeMemory, id + 1);
+        typeDisk = Arrays.copyOf(typeDisk, id + 1);
+        typeBootupTime = Arrays.copyOf(typeBootupTime, id + 1);
+        typeBootupTime[id] = -1;
+        typeHourlyRate = Arrays.copyOf(typeHourlyRate, id + 1);
+        typeHourlyRate[id] = -1;
+        return id;
     }
 
-    public boolean isActive() {
-        return active.equals("active") || active.equals("booting");
+    private int getOrAddRow(int tid, int sid) {
+        int[] rows = rowOfServer[tid];
+        if (sid < rows.length && rows[sid] >= 0) return rows[sid];
+
+        if (sid >= rows.length) {
+            int oldLength = rows.length;
+            rows = Arrays.copyOf(rows, Math.max(sid + 1, oldLength * 2));
+            Arrays.fill(rows, oldLength, rows.length, -1);
+            rowOfServer[tid] = rows;
+        }
+        if (size == typeId.length) {
+            grow(size * 2);
+        }
+        int row = size++;
+        typeId[row] = tid;
+        serverId[row] = sid;
+        rows[sid] = row;
+        numOfServer[tid]++;
+        return row;
     }
 
-    public String getBootupTime() {
-        return bootupTime;
+    private void grow(int capacity) {
+        typeId = Arrays.copyOf(typeId, capacity);
+        serverId = Arrays.copyOf(serverId, capacity);
+        state = Arrays.copyOf(state, capacity);
+        cores = Arrays.copyOf(cores, capacity);
+        memory = Arrays.copyOf(memory, capacity);
+        disk = Arrays.copyOf(disk, capacity);
+        waiting = Arrays.copyOf(waiting, capacity);
+        running = Arrays.copyOf(running, capacity);
+    }
+
+    private static int parseState(String state) {
+        switch (state) {
+            case "inactive":
+                return INACTIVE;
+            case "booting":
+                return BOOTING;
+            case "idle":
+                return IDLE;
+            case "active":
+                return ACTIVE;
+            default:
+                return UNAVAILABLE;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void markComplete() {
+        complete = true;
+    }
+
+    public int getViewSize() {
+        return viewSize;
+    }
+
+    public int getViewRow(int i) {
+        return view[i];
+    }
+
+    public boolean isTypeInView(String type) {
+        Integer id = typeIds.get(type);
+        return id != null && typeInView[id];
+    }
+
+    public String getType(int row) {
+        return typeNames.get(typeId[row]);
+    }
+
+    public int getTypeId(int row) {
+        return typeId[row];
+    }
+
+    public int getNumOfType() {
+        return typeNames.size();
+    }
+
+    public boolean isSystemLoaded() {
+        return systemLoaded;
+    }
+
+    public boolean isTypeBootupTimeKnown(int tid) {
+        return typeBootupTime[tid] >= 0;
+    }
+
+    /**
+     * bootup time of the server type, DEFAULT_BOOTUP_TIME if not found in ds-system.xml
+     */
+    public int getTypeBootupTime(int tid) {
+        return typeBootupTime[tid] >= 0 ? typeBootupTime[tid] : DEFAULT_BOOTUP_TIME;
+    }
+
+    /**
+     * hourly rate of the server type, 0 if not found in ds-system.xml
+     */
+    public double getTypeHourlyRate(int tid) {
+        return Math.max(typeHourlyRate[tid], 0);
+    }
+
+    public String getTypeName(int tid) {
+        return typeNames.get(tid);
+    }
+
+    /**
+     * largest cores seen of the server type, i.e. the cores of an idle server
+     */
+    public int getTypeCores(int tid) {
+        return typeCores[tid];
+    }
+
+    public int getTypeMemory(int tid) {
+        return typeMemory[tid];
+    }
+
+    public int getTypeDisk(int tid) {
+        return typeDisk[tid];
+    }
+
+    public int getServerId(int row) {
+        return serverId[row];
+    }
+
+    public int getNumOfServer(int row) {
+        return numOfServer[typeId[row]];
+    }
+
+    public int getState(int row) {
+        return state[row];
+    }
+
+    public void setState(int row, int state) {
+        this.state[row] = state;
+    }
+
+    /**
+     * the server type of the row has enough resource for the job, as GETS Capable
+     */
+    public boolean isCapable(int row, int jobCores, int jobMemory, int jobDisk) {
+        int tid = typeId[row];
+        return typeCores[tid] >= jobCores && typeMemory[tid] >= jobMemory && typeDisk[tid] >= jobDisk;
+    }
+
+    public int getCores(int row) {
+        return cores[row];
+    }
+
+    public int getMemory(int row) {
+        return memory[row];
+    }
+
+    public int getDisk(int row) {
+        return disk[row];
+    }
+
+    public int getWaiting(int row) {
+        return waiting[row];
+    }
+
+    public int getRunning(int row) {
+        return running[row];
+    }
+}
+
+class QueryPlanner {
+    public static final int LOCAL = 0;
+    public static final int AVAIL = 1;
+    public static final int CAPABLE = 2;
+
+    // after this number of GETS Avail in a row return nothing, only try Avail once per this number of job
+    private static final int MAX_AVAIL_MISSES = 4;
+    // LSTJ sent for drifted server per job before planning, GETS Avail is cheaper than more
+    public static final int MAX_RECONCILE = 2;
+
+    private int numOfJob;
+    private int numOfLocal;
+    private int numOfAvail;
+    private int numOfAvailMiss;
+    private int numOfCapable;
+    private int availMissesInRow;
+    private long bytesSaved;
+
+    /**
+     * choose which GETS to use for the job
+     *
+     * @param table  the server table
+     * @param queues the queue model, it answers if no server that could run the job is drifted
+     * @return LOCAL if the model can answer, otherwise AVAIL or CAPABLE
+     */
+    public int plan(ServerTable table, QueueModel queues, int cores, int memory, int disk) {
+        int available = table.isComplete() ? queues.viewAvailable(table, cores, memory, disk) : -1;
+        if (available > 0) {
+            return LOCAL;
+        }
+        // the model is exact and nothing is available, GETS Avail would return nothing
+        if (available == 0) {
+            return CAPABLE;
+        }
+        if (availMissesInRow >= MAX_AVAIL_MISSES && numOfJob % MAX_AVAIL_MISSES != 0) {
+            return CAPABLE;
+        }
+        return AVAIL;
+    }
+
+    /**
+     * record the result of a job
+     *
+     * @param strategy     the GETS answered the job
+     * @param received     number of server record received
+     * @param capable      number of server record GETS Capable would return
+     * @param recordLength length of a server record
+     */
+    public void record(int strategy, int received, int capable, int recordLength) {
+        numOfJob++;
+        if (strategy == LOCAL) {
+            numOfLocal++;
+        } else if (strategy == AVAIL) {
+            numOfAvail++;
+            availMissesInRow = 0;
+        } else {
+            numOfCapable++;
+        }
+        bytesSaved += (long) (capable - received) * recordLength;
+    }
+
+    /**
+     * GETS All is only sent once, but the bytes are not saved
+     */
+    public void recordAll(int received, int recordLength) {
+        bytesSaved -= (long) received * recordLength;
+    }
+
+    /**
+     * a GETS Avail that return nothing cost a round trip before GETS Capable
+     *
+     * @param bytes bytes sent and received by the GETS Avail
+     */
+    public void recordAvailMiss(long bytes) {
+        numOfAvailMiss++;
+        availMissesInRow++;
+        bytesSaved -= bytes;
+    }
+
+    /**
+     * LSTJ keep the queue model exact so it can answer, its traffic is not saved
+     *
+     * @param bytes bytes sent and received by the LSTJ
+     */
+    public void recordReconcile(long bytes) {
+        bytesSaved -= bytes;
+    }
+
+    public int getNumOfJob() {
+        return numOfJob;
+    }
+
+    public double getHitRate() {
+        return numOfJob == 0 ? 0 : (double) (numOfLocal + numOfAvail) / numOfJob;
+    }
+
+    public String getSummary() {
+        return String.format("query planner: jobs %d, local %d, avail %d, avail miss %d, capable %d, "
+                        + "hit rate %.2f%%, bytes saved %d (%.1f per job)",
+                numOfJob, numOfLocal, numOfAvail, numOfAvailMiss, numOfCapable,
+                getHitRate() * 100, bytesSaved, numOfJob == 0 ? 0.0 : (double) bytesSaved / numOfJob);
+    }
+}
+
+class QueueModel {
+    // LSTJ job state
+    private static final String RUNNING = "2";
+
+    private int now;
+
+    // one column per row of the server table
+    private int[] runningCores;
+    private int[] runningMemory;
+    private int[] runningDisk;
+    // sum of cores * estimated end time of the running jobs
+    private long[] runningEnd;
+    // sum of cores * estRuntime of the waiting jobs
+    private long[] waitingWork;
+    private int[] numOfRunning;
+    // time the server finish booting, 0 if not booted by the client
+    private int[] readyTime;
+    // row is drifted if the model may differ from ds-server, rebuild it from LSTJ
+    private boolean[] drifted;
+    // waiting job id of each row in submit order
+    private List<ArrayDeque<Integer>> waitingJobs;
+
+    private Map<Integer, QueuedJob> jobs;
+
+    private int numOfReconcile;
+
+    public QueueModel() {
+        runningCores = new int[0];
+        runningMemory = new int[0];
+        runningDisk = new int[0];
+        runningEnd = new long[0];
+        waitingWork = new long[0];
+        numOfRunning = new int[0];
+        readyTime = new int[0];
+        drifted = new boolean[0];
+        waitingJobs = new ArrayList<>();
+        jobs = new HashMap<>();
+    }
+
+    /**
+     * move the model to the time of the current event, the time never go back
+     */
+    public void setTime(int time) {
+        now = Math.max(now, time);
+    }
+
+    /**
+     * add the job to the queue of the row, it run now if it fit, otherwise wait
+     * an inactive server start booting and is ready after the bootup time of its type
+     */
+    public void schedule(ServerTable table, int row, JOBNCmd job) {
+        if (row < 0) return;
+        ensureCapacity(table.size());
+        setTime(Integer.parseInt(job.getSubmitTime()));
+
+        int state = table.getState(row);
+        if (readyTime[row] == 0 && (state == ServerTable.INACTIVE || state == ServerTable.BOOTING)) {
+            readyTime[row] = now + table.getTypeBootupTime(table.getTypeId(row));
+            table.setState(row, ServerTable.BOOTING);
+        }
+
+        QueuedJob queued = new QueuedJob(Integer.parseInt(job.getJobId()), row,
+                Integer.parseInt(job.getCore()), Integer.parseInt(job.getMemory()), Integer.parseInt(job.getDisk()),
+                Integer.parseInt(job.getEstRuntime()), Integer.parseInt(job.getSubmitTime()));
+        if (canStartNow(table, row, queued.getCores(), queued.getMemory(), queued.getDisk())) {
+            addRunning(queued, Math.max(now, readyTime[row]), isReadyTimeKnown(table, row));
+        } else {
+            addWaiting(queued);
+        }
+    }
+
+    /**
+     * remove the job and start the waiting jobs that fit
+     * the job is removed even if the model has it waiting or on another server, and both rows are drifted
+     *
+     * @param line JCPL message
+     */
+    public void complete(ServerTable table, String line) {
+        String[] info = line.split(" ");
+        setTime(Integer.parseInt(info[1]));
+        int row = table.findRow(info[3], Integer.parseInt(info[4]));
+        if (row < 0) return;
+        ensureCapacity(table.size());
+
+        QueuedJob job = jobs.get(Integer.parseInt(info[2]));
+        if (job == null || job.getRow() != row || !job.isRunning()) {
+            drifted[row] = true;
+        }
+        if (job == null) return;
+        if (job.getRow() != row) drifted[job.getRow()] = true;
+
+        remove(job);
+        startWaiting(table, job.getRow());
+    }
+
+    /**
+     * compare the number of waiting and running job of the rows in the view with ds-server, call it after GETS
+     * jobs on a server still booting are waiting in ds-server
+     */
+    public void check(ServerTable table) {
+        ensureCapacity(table.size());
+        for (int i = 0; i < table.getViewSize(); i++) {
+            int row = table.getViewRow(i);
+            boolean booting = readyTime[row] > now;
+            int waiting = waitingJobs.get(row).size() + (booting ? numOfRunning[row] : 0);
+            int running = booting ? 0 : numOfRunning[row];
+            if (table.getWaiting(row) != waiting || table.getRunning(row) != running) {
+                drifted[row] = true;
+            }
+        }
+    }
+
+    /**
+     * @return the job scheduled by the client and not completed yet, null if not found
+     */
+    public QueuedJob getJob(int jobId) {
+        return jobs.get(jobId);
+    }
+
+    public boolean isDrifted(int row) {
+        return row < drifted.length && drifted[row];
+    }
+
+    /**
+     * build the view of the servers GETS Avail would return from the model
+     * only if every server that could run the job is not drifted
+     *
+     * @return size of the view, -1 if the model cannot answer
+     */
+    public int viewAvailable(ServerTable table, int jobCores, int jobMemory, int jobDisk) {
+        ensureCapacity(table.size());
+        table.beginView();
+        for (int row = 0; row < table.size(); row++) {
+            if (!table.isCapable(row, jobCores, jobMemory, jobDisk)) continue;
+            if (drifted[row]) return -1;
+
+            // jobs on a booting server are waiting in ds-server
+            if (table.getState(row) != ServerTable.UNAVAILABLE
+                    && canStartNow(table, row, jobCores, jobMemory, jobDisk)
+                    && !(readyTime[row] > now && numOfRunning[row] > 0)) {
+                table.addToView(row);
+            }
+        }
+        return table.getViewSize();
+    }
+
+    /**
+     * rebuild the queue of the row from LSTJ
+     * the ready time of a booting server is kept, or derived from the first job submitted to it if not booted
+     * by the client, and its jobs that fit start when it is ready as in schedule
+     *
+     * @param lines records of LSTJ, jobID jobState submitTime startTime estRunTime core memory disk
+     */
+    public void rebuild(ServerTable table, int row, List<String> lines) {
+        ensureCapacity(table.size());
+        int ready = readyTime[row];
+        clear(row);
+        if (ready == 0 && table.getState(row) == ServerTable.BOOTING && !lines.isEmpty()) {
+            int firstSubmit = Integer.MAX_VALUE;
+            for (String line : lines) {
+                firstSubmit = Math.min(firstSubmit, Integer.parseInt(line.split(" ")[2]));
+            }
+            ready = firstSubmit + table.getTypeBootupTime(table.getTypeId(row));
+        }
+        readyTime[row] = ready;
+
+        boolean booting = readyTime[row] > now;
+        for (String line : lines) {
+            String[] info = line.split(" ");
+            QueuedJob job = new QueuedJob(Integer.parseInt(info[0]), row,
+                    Integer.parseInt(info[5]), Integer.parseInt(info[6]), Integer.parseInt(info[7]),
+                    Integer.parseInt(info[4]), Integer.parseInt(info[2]));
+            if (info[1].equals(RUNNING)) {
+                addRunning(job, Integer.parseInt(info[3]), true);
+            } else if (booting && canStartNow(table, row, job.getCores(), job.getMemory(), job.getDisk())) {
+                addRunning(job, readyTime[row], isReadyTimeKnown(table, row));
+            } else {
+                addWaiting(job);
+            }
+        }
+        numOfReconcile++;
+    }
+
+    /**
+     * empty the queue of the row
+     */
+    public void clear(int row) {
+        if (row < 0 || row >= numOfRunning.length) return;
+
+        jobs.values().removeIf(job -> job.getRow() == row);
+        runningCores[row] = 0;
+        runningMemory[row] = 0;
+        runningDisk[row] = 0;
+        runningEnd[row] = 0;
+        waitingWork[row] = 0;
+        numOfRunning[row] = 0;
+        readyTime[row] = 0;
+        drifted[row] = false;
+        waitingJobs.get(row).clear();
+    }
+
+    /**
+     * estimated time before the job can start on the server, O(1)
+     *
+     * @return wait, Integer.MAX_VALUE if the server cannot run the job
+     */
+    public int getEstimatedWait(ServerTable table, int row, int jobCores, int jobMemory, int jobDisk) {
+        ensureCapacity(table.size());
+        if (table.getState(row) == ServerTable.UNAVAILABLE || !table.isCapable(row, jobCores, jobMemory, jobDisk)) {
+            return Integer.MAX_VALUE;
+        }
+
+        int boot;
+        if (readyTime[row] > 0) {
+            boot = Math.max(0, readyTime[row] - now);
+        } else {
+            boot = table.getState(row) == ServerTable.INACTIVE || table.getState(row) == ServerTable.BOOTING
+                    ? table.getTypeBootupTime(table.getTypeId(row)) : 0;
+        }
+        if (canStartNow(table, row, jobCores, jobMemory, jobDisk)) return boot;
+
+        // work left after the server is ready is spread over all the cores of the server
+        long ready = now + boot;
+        long work = runningEnd[row] - runningCores[row] * ready + waitingWork[row];
+        int capacity = table.getTypeCores(table.getTypeId(row));
+        return (int) Math.min(Integer.MAX_VALUE - 1, boot + Math.max(0, work) / capacity);
+    }
+
+    /**
+     * first row of the view the job can start without waiting, with the smallest fitness value
+     *
+     * @return row, -1 if not found
+     */
+    public int findBestFit(ServerTable table, int jobCores, int jobMemory, int jobDisk) {
+        ensureCapacity(table.size());
+        int best = -1;
+        int bestFitness = Integer.MAX_VALUE;
+        for (int i = 0; i < table.getViewSize(); i++) {
+            int row = table.getViewRow(i);
+            if (table.getState(row) == ServerTable.UNAVAILABLE
+                    || !canStartNow(table, row, jobCores, jobMemory, jobDisk)) continue;
+
+            int fitness = table.getTypeCores(table.getTypeId(row)) - runningCores[row] - jobCores;
+            if (fitness < bestFitness) {
+                best = row;
+                bestFitness = fitness;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * first row of the view with the shortest estimated wait, the smaller server if the same
+     *
+     * @return row, -1 if not found
+     */
+    public int findShortestWait(ServerTable table, int jobCores, int jobMemory, int jobDisk) {
+        int best = -1;
+        int bestWait = Integer.MAX_VALUE;
+        int bestCores = Integer.MAX_VALUE;
+        for (int i = 0; i < table.getViewSize(); i++) {
+            int row = table.getViewRow(i);
+            int wait = getEstimatedWait(table, row, jobCores, jobMemory, jobDisk);
+            int cores = table.getTypeCores(table.getTypeId(row));
+            if (wait == Integer.MAX_VALUE) continue;
+            if (wait < bestWait || (wait == bestWait && cores < bestCores)) {
+                best = row;
+                bestWait = wait;
+                bestCores = cores;
+            }
+        }
+        return best;
+    }
+
+    private boolean canStartNow(ServerTable table, int row, int jobCores, int jobMemory, int jobDisk) {
+        return waitingJobs.get(row).isEmpty() && fit(table, row, jobCores, jobMemory, jobDisk);
+    }
+
+    private boolean fit(ServerTable table, int row, int jobCores, int jobMemory, int jobDisk) {
+        int tid = table.getTypeId(row);
+        return table.getTypeCores(tid) - runningCores[row] >= jobCores
+                && table.getTypeMemory(tid) - runningMemory[row] >= jobMemory
+                && table.getTypeDisk(tid) - runningDisk[row] >= jobDisk;
+    }
+
+    private boolean isReadyTimeKnown(ServerTable table, int row) {
+        return readyTime[row] <= now || table.isTypeBootupTimeKnown(table.getTypeId(row));
+    }
+
+    /**
+     * start the waiting jobs of the row in submit order while they fit
+     */
+    private void startWaiting(ServerTable table, int row) {
+        ArrayDeque<Integer> waiting = waitingJobs.get(row);
+        while (!waiting.isEmpty()) {
+            QueuedJob next = jobs.get(waiting.peekFirst());
+            if (!fit(table, row, next.getCores(), next.getMemory(), next.getDisk())) break;
+            remove(next);
+            addRunning(next, Math.max(now, readyTime[row]), isReadyTimeKnown(table, row));
+        }
+    }
+
+    private void addRunning(QueuedJob job, int startTime, boolean known) {
+        int row = job.getRow();
+        job.start(startTime, known);
+        jobs.put(job.getJobId(), job);
+        runningCores[row] += job.getCores();
+        runningMemory[row] += job.getMemory();
+        runningDisk[row] += job.getDisk();
+        runningEnd[row] += (long) job.getCores() * (startTime + job.getEstRuntime());
+        numOfRunning[row]++;
+    }
+
+    private void addWaiting(QueuedJob job) {
+        int row = job.getRow();
+        jobs.put(job.getJobId(), job);
+        waitingWork[row] += (long) job.getCores() * job.getEstRuntime();
+        waitingJobs.get(row).addLast(job.getJobId());
+    }
+
+    private void remove(QueuedJob job) {
+        int row = job.getRow();
+        jobs.remove(job.getJobId());
+        if (job.isRunning()) {
+            runningCores[row] -= job.getCores();
+            runningMemory[row] -= job.getMemory();
+            runningDisk[row] -= job.getDisk();
+            runningEnd[row] -= (long) job.getCores() * (job.getStartTime() + job.getEstRuntime());
+            numOfRunning[row]--;
+        } else {
+            waitingWork[row] -= (long) job.getCores() * job.getEstRuntime();
+            waitingJobs.get(row).remove(job.getJobId());
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= numOfRunning.length) return;
+
+        runningCores = Arrays.copyOf(runningCores, size);
+        runningMemory = Arrays.copyOf(runningMemory, size);
+        runningDisk = Arrays.copyOf(runningDisk, size);
+        runningEnd = Arrays.copyOf(runningEnd, size);
+        waitingWork = Arrays.copyOf(waitingWork, size);
+        numOfRunning = Arrays.copyOf(numOfRunning, size);
+        readyTime = Arrays.copyOf(readyTime, size);
+        drifted = Arrays.copyOf(drifted, size);
+        while (waitingJobs.size() < size) {
+            waitingJobs.add(new ArrayDeque<>());
+        }
+    }
+
+    public String getSummary() {
+        return String.format("queue model: jobs in queue %d, LSTJ reconcile %d", jobs.size(), numOfReconcile);
+    }
+}
+
+class QueuedJob {
+    private int jobId;
+    private int row;
+    private int cores;
+    private int memory;
+    private int disk;
+    private int estRuntime;
+    private int submitTime;
+    // -1 if waiting
+    private int startTime;
+    // false if the start time depends on a bootup time not found in ds-system.xml
+    private boolean startKnown;
+
+    public QueuedJob(int jobId, int row, int cores, int memory, int disk, int estRuntime, int submitTime) {
+        this.jobId = jobId;
+        this.row = row;
+        this.cores = cores;
+        this.memory = memory;
+        this.disk = disk;
+        this.estRuntime = estRuntime;
+        this.submitTime = submitTime;
+        this.startTime = -1;
+    }
+
+    public int getJobId() {
+        return jobId;
+    }
+
+    public int getRow() {
+        return row;
     }
 
     public int getCores() {
         return cores;
     }
 
-    public String getMemory() {
+    public int getMemory() {
         return memory;
     }
 
-    public String getDisk() {
+    public int getDisk() {
         return disk;
     }
 
-    public String getScheduled() {
-        return scheduled;
+    public int getEstRuntime() {
+        return estRuntime;
+    }
+
+    public int getSubmitTime() {
+        return submitTime;
+    }
+
+    public int getStartTime() {
+        return startTime;
     }
 
-    public String getRunning() {
-        return running;
+    public boolean isRunning() {
+        return startTime >= 0;
     }
 
-    public boolean isSameType(ServerType other) {
-        return getType().equals(other.getType());
+    public boolean isStartKnown() {
+        return startKnown;
     }
 
-    public boolean isSameType(String other) {
-        return getType().equals(other);
+    public void start(int time, boolean known) {
+        this.startTime = time;
+        this.startKnown = known;
     }
+}
+
+class SlaPolicy {
+    public static final String DEFAULT_CLASSES = "100:300,1000:3000,*:20000";
+
+    // a long job only wait on a server already on within this fraction of its slack, estRuntime is only an estimate
+    private static final double SAFETY_MARGIN = 0.25;
+
+    // maximum estRuntime and turnaround target of each job class
+    private int[] maxRuntime;
+    private int[] target;
 
-    public int getFitnessValue(JOBNCmd job) {
-        return cores - Integer.parseInt(job.getCore());
+    private int[] numOfJob;
+    private int[] numOfViolation;
+    private List<Integer> turnarounds;
+
+    /**
+     * @param classes maximum estRuntime:turnaround target separated by ",", "*" is no maximum
+     *                the classes must be sorted by maximum estRuntime
+     */
+    public SlaPolicy(String classes) {
+        String[] info = classes.split(",");
+        maxRuntime = new int[info.length];
+        target = new int[info.length];
+        for (int i = 0; i < info.length; i++) {
+            String[] cls = info[i].split(":");
+            maxRuntime[i] = cls[0].equals("*") ? Integer.MAX_VALUE : Integer.parseInt(cls[0]);
+            target[i] = Integer.parseInt(cls[1]);
+            if (i > 0 && maxRuntime[i] <= maxRuntime[i - 1]) {
+                throw new IllegalArgumentException("sla classes not sorted by maximum estRuntime: " + classes);
+            }
+        }
+        // the last class take every job left
+        maxRuntime[info.length - 1] = Integer.MAX_VALUE;
+
+        numOfJob = new int[info.length];
+        numOfViolation = new int[info.length];
+        turnarounds = new ArrayList<>();
+    }
+
+    public int getJobClass(int estRuntime) {
+        int cls = 0;
+        while (estRuntime > maxRuntime[cls]) cls++;
+        return cls;
+    }
+
+    public int getTarget(int cls) {
+        return target[cls];
+    }
+
+    /**
+     * the last class is the long class if there are more than one class
+     */
+    public boolean isLongClass(int cls) {
+        return target.length > 1 && cls == target.length - 1;
+    }
+
+    /**
+     * choose the server from the view of the table
+     * a short job take the server with the shortest wait, so it start as soon as possible,
+     * a long job take the server already on with the longest wait within SAFETY_MARGIN of its slack,
+     * so servers with a short queue are kept for the short jobs and the rest of the slack covers an estRuntime
+     * too small, otherwise the one with the shortest wait
+     * the wait include the bootup time of the server, the smaller server if the same
+     *
+     * @return row, -1 if the view is empty
+     */
+    public int choose(ServerTable table, QueueModel queues, JOBNCmd job) {
+        int jobCores = Integer.parseInt(job.getCore());
+        int jobMemory = Integer.parseInt(job.getMemory());
+        int jobDisk = Integer.parseInt(job.getDisk());
+        int estRuntime = Integer.parseInt(job.getEstRuntime());
+        int cls = getJobClass(estRuntime);
+        boolean longJob = isLongClass(cls);
+        double maxWait = (getTarget(cls) - estRuntime) * SAFETY_MARGIN;
+
+        // server already on with the longest wait within the margin, only for long job
+        int bestOn = -1;
+        int bestOnWait = 0;
+        int bestOnCores = 0;
+        // server with the shortest wait
+        int best = -1;
+        int bestWait = 0;
+        int bestCores = 0;
+        for (int i = 0; i < table.getViewSize(); i++) {
+            int row = table.getViewRow(i);
+            int wait = queues.getEstimatedWait(table, row, jobCores, jobMemory, jobDisk);
+            if (wait == Integer.MAX_VALUE) continue;
+            int cores = table.getTypeCores(table.getTypeId(row));
+
+            if (best < 0 || wait < bestWait || (wait == bestWait && cores < bestCores)) {
+                best = row;
+                bestWait = wait;
+                bestCores = cores;
+            }
+
+            int state = table.getState(row);
+            boolean on = state == ServerTable.ACTIVE || state == ServerTable.IDLE || state == ServerTable.BOOTING;
+            if (longJob && on && wait <= maxWait
+                    && (bestOn < 0 || wait > bestOnWait || (wait == bestOnWait && cores < bestOnCores))) {
+                bestOn = row;
+                bestOnWait = wait;
+                bestOnCores = cores;
+            }
+        }
+        return bestOn >= 0 ? bestOn : best;
+    }
+
+    /**
+     * call it before the queue model remove the job
+     *
+     * @param line JCPL message
+     */
+    public void complete(QueueModel queues, String line) {
+        String[] info = line.split(" ");
+        QueuedJob job = queues.getJob(Integer.parseInt(info[2]));
+        if (job == null) return;
+
+        int turnaround = Integer.parseInt(info[1]) - job.getSubmitTime();
+        int cls = getJobClass(job.getEstRuntime());
+        numOfJob[cls]++;
+        if (turnaround > target[cls]) numOfViolation[cls]++;
+        turnarounds.add(turnaround);
+    }
+
+    public double getViolationRate() {
+        int total = Arrays.stream(numOfJob).sum();
+        return total == 0 ? 0 : (double) Arrays.stream(numOfViolation).sum() / total;
+    }
+
+    /**
+     * nearest rank percentile of turnaround time
+     *
+     * @param p percentile, e.g. 0.99
+     */
+    public int getPercentile(double p) {
+        if (turnarounds.isEmpty()) return 0;
+        List<Integer> sorted = new ArrayList<>(turnarounds);
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(p * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("sla: jobs %d, violation rate %.2f%%, p99 turnaround %d",
+                turnarounds.size(), getViolationRate() * 100, getPercentile(0.99)));
+        for (int i = 0; i < target.length; i++) {
+            sb.append(String.format("%n  class %d (estRuntime <= %s, target %d): jobs %d, violation %d",
+                    i, maxRuntime[i] == Integer.MAX_VALUE ? "*" : String.valueOf(maxRuntime[i]),
+                    target[i], numOfJob[i], numOfViolation[i]));
+        }
+        return sb.toString();
+    }
+}
+
+class PerformanceReport {
+    private static final int SCHD = 0;
+    private static final int BOOT = 1;
+    private static final int START = 2;
+    private static final int START_EST = 3;
+    private static final int JCPL = 4;
+    private static final String[] EVENT_NAMES = {"SCHD", "BOOT", "START", "START_EST", "JCPL"};
+
+    // index of the columns of summarise
+    private static final int SUM_SERVERS = 0;
+    private static final int SUM_PLACED = 1;
+    private static final int SUM_FINISHED = 2;
+    private static final int SUM_ESTIMATED = 3;
+    private static final int SUM_WAITING = 4;
+    private static final int SUM_EXECUTION = 5;
+    private static final int SUM_TURNAROUND = 6;
+    private static final int SUM_BUSY = 7;
+    private static final int SUM_CAPACITY = 8;
+    private static final int SUM_COST = 9;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // timeline of placements, boots, starts and completions, one column per field
+    private int numOfEvent;
+    private int[] eventTime;
+    private int[] eventKind;
+    private int[] eventJob;
+    private int[] eventRow;
+
+    // one column per row of the server table, leaseStart is -1 if the server is not leased now
+    private int[] leaseStart;
+    // seconds of the leases closed by a failure
+    private long[] leaseOfRow;
+    private int[] placedOfRow;
+    private int[] finishedOfRow;
+    private int[] estimatedOfRow;
+    private long[] waitingOfRow;
+    private long[] executionOfRow;
+    private long[] turnaroundOfRow;
+    private long[] busyOfRow;
+
+    private int lastTime;
+
+    public PerformanceReport() {
+        eventTime = new int[INITIAL_CAPACITY];
+        eventKind = new int[INITIAL_CAPACITY];
+        eventJob = new int[INITIAL_CAPACITY];
+        eventRow = new int[INITIAL_CAPACITY];
+        leaseStart = new int[0];
+        leaseOfRow = new long[0];
+        placedOfRow = new int[0];
+        finishedOfRow = new int[0];
+        estimatedOfRow = new int[0];
+        waitingOfRow = new long[0];
+        executionOfRow = new long[0];
+        turnaroundOfRow = new long[0];
+        busyOfRow = new long[0];
+    }
+
+    /**
+     * record the placement of the job, call it before the queue model apply the job
+     * a lease start at the first placement, and again at the first placement after the server recovered
+     */
+    public void schedule(ServerTable table, int row, JOBNCmd job) {
+        if (row < 0) return;
+        ensureCapacity(table.size());
+
+        int time = Integer.parseInt(job.getSubmitTime());
+        int jobId = Integer.parseInt(job.getJobId());
+        lastTime = Math.max(lastTime, time);
+        addEvent(time, SCHD, jobId, row);
+
+        int state = table.getState(row);
+        if (leaseStart[row] < 0) {
+            leaseStart[row] = time;
+            if (state == ServerTable.INACTIVE) addEvent(time, BOOT, -1, row);
+        }
+        placedOfRow[row]++;
+    }
+
+    /**
+     * close the lease of a failed server, it is not charged until it is used again
+     *
+     * @param time time of RESF
+     */
+    public void fail(int row, int time) {
+        lastTime = Math.max(lastTime, time);
+        if (row < 0 || row >= leaseStart.length || leaseStart[row] < 0) return;
+
+        leaseOfRow[row] += time - leaseStart[row];
+        leaseStart[row] = -1;
+    }
+
+    /**
+     * record the start and completion of the job, call it before the queue model remove the job
+     *
+     * @param line JCPL message
+     */
+    public void complete(QueueModel queues, String line) {
+        String[] info = line.split(" ");
+        int end = Integer.parseInt(info[1]);
+        int jobId = Integer.parseInt(info[2]);
+        lastTime = Math.max(lastTime, end);
+
+        QueuedJob job = queues.getJob(jobId);
+        if (job == null) return;
+
+        int submit = job.getSubmitTime();
+        int row = job.getRow();
+        int start = job.getStartTime();
+        // the model still has the job waiting, estimate the start time by estRuntime
+        if (start < 0) {
+            start = Math.max(submit, end - job.getEstRuntime());
+        }
+        if (job.isRunning() && job.isStartKnown()) {
+            addEvent(start, START, jobId, row);
+        } else {
+            addEvent(start, START_EST, jobId, row);
+            estimatedOfRow[row]++;
+        }
+        addEvent(end, JCPL, jobId, row);
+
+        finishedOfRow[row]++;
+        waitingOfRow[row] += start - submit;
+        executionOfRow[row] += end - start;
+        turnaroundOfRow[row] += end - submit;
+        busyOfRow[row] += (long) job.getCores() * (end - start);
+    }
+
+    private void addEvent(int time, int kind, int jobId, int row) {
+        if (numOfEvent == eventTime.length) {
+            int capacity = numOfEvent * 2;
+            eventTime = Arrays.copyOf(eventTime, capacity);
+            eventKind = Arrays.copyOf(eventKind, capacity);
+            eventJob = Arrays.copyOf(eventJob, capacity);
+            eventRow = Arrays.copyOf(eventRow, capacity);
+        }
+        eventTime[numOfEvent] = time;
+        eventKind[numOfEvent] = kind;
+        eventJob[numOfEvent] = jobId;
+        eventRow[numOfEvent] = row;
+        numOfEvent++;
+    }
+
+    private void ensureCapacity(int size) {
+        int oldLength = leaseStart.length;
+        if (size <= oldLength) return;
+
+        leaseStart = Arrays.copyOf(leaseStart, size);
+        Arrays.fill(leaseStart, oldLength, size, -1);
+        leaseOfRow = Arrays.copyOf(leaseOfRow, size);
+        placedOfRow = Arrays.copyOf(placedOfRow, size);
+        finishedOfRow = Arrays.copyOf(finishedOfRow, size);
+        estimatedOfRow = Arrays.copyOf(estimatedOfRow, size);
+        waitingOfRow = Arrays.copyOf(waitingOfRow, size);
+        executionOfRow = Arrays.copyOf(executionOfRow, size);
+        turnaroundOfRow = Arrays.copyOf(turnaroundOfRow, size);
+        busyOfRow = Arrays.copyOf(busyOfRow, size);
+    }
+
+    /**
+     * sum up the rows of each server type, the last one is all server types
+     * each line is indexed by SUM_SERVERS to SUM_COST
+     */
+    private double[][] summarise(ServerTable table) {
+        int numOfType = table.getNumOfType();
+        double[][] sums = new double[numOfType + 1][SUM_COST + 1];
+        for (int row = 0; row < leaseStart.length; row++) {
+            if (placedOfRow[row] == 0) continue;
+            long lease = leaseOfRow[row] + (leaseStart[row] < 0 ? 0 : lastTime - leaseStart[row]);
+            double[] rowSum = {1, placedOfRow[row], finishedOfRow[row], estimatedOfRow[row], waitingOfRow[row],
+                    executionOfRow[row], turnaroundOfRow[row], busyOfRow[row],
+                    (double) table.getTypeCores(table.getTypeId(row)) * lease,
+                    table.getTypeHourlyRate(table.getTypeId(row)) * lease / 3600};
+            for (int i = 0; i < rowSum.length; i++) {
+                sums[table.getTypeId(row)][i] += rowSum[i];
+                sums[numOfType][i] += rowSum[i];
+            }
+        }
+        return sums;
+    }
+
+    private static double average(double total, double count) {
+        return count == 0 ? 0 : total / count;
+    }
+
+    public String getSummary(ServerTable table) {
+        double[] all = summarise(table)[table.getNumOfType()];
+        double finished = all[SUM_FINISHED];
+        return String.format("report: jobs placed %d, finished %d, estimated starts %d, avg waiting %.2f, "
+                        + "avg execution %.2f, avg turnaround %.2f, utilisation %.2f%%, servers used %d, cost %s",
+                (int) all[SUM_PLACED], (int) finished, (int) all[SUM_ESTIMATED],
+                average(all[SUM_WAITING], finished), average(all[SUM_EXECUTION], finished),
+                average(all[SUM_TURNAROUND], finished), average(all[SUM_BUSY], all[SUM_CAPACITY]) * 100,
+                (int) all[SUM_SERVERS], table.isSystemLoaded() ? String.format("$%.2f", all[SUM_COST]) : "unknown");
+    }
+
+    /**
+     * write prefix.csv and prefix.json for the summary of each server type, prefix-timeline.csv for the timeline
+     * the averages are over finished jobs, estimatedStarts of them have a start time estimated by the client
+     */
+    public void write(ServerTable table, String prefix) {
+        double[][] sums = summarise(table);
+        int numOfType = table.getNumOfType();
+
+        StringBuilder csv = new StringBuilder(
+                "serverType,serversUsed,jobsPlaced,jobsFinished,estimatedStarts,avgWaiting,avgExecution,"
+                        + "avgTurnaround,utilisation,cost\n");
+        StringBuilder json = new StringBuilder("{\n  \"types\": [");
+        for (int tid = 0; tid <= numOfType; tid++) {
+            double[] sum = sums[tid];
+            if (tid < numOfType && sum[0] == 0) continue;
+
+            String name = tid < numOfType ? table.getTypeName(tid) : "all";
+            String cost = table.isSystemLoaded() ? String.format(Locale.ROOT, "%.2f", sum[SUM_COST]) : "";
+            double finished = sum[SUM_FINISHED];
+            Object[] values = {name, (int) sum[SUM_SERVERS], (int) sum[SUM_PLACED], (int) finished,
+                    (int) sum[SUM_ESTIMATED], average(sum[SUM_WAITING], finished),
+                    average(sum[SUM_EXECUTION], finished), average(sum[SUM_TURNAROUND], finished),
+                    average(sum[SUM_BUSY], sum[SUM_CAPACITY]), cost};
+            csv.append(String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%.2f,%.2f,%.2f,%.4f,%s\n", values));
+
+            values[values.length - 1] = cost.isEmpty() ? "null" : cost;
+            String entry = String.format(Locale.ROOT, "{\"serverType\": \"%s\", \"serversUsed\": %d, "
+                            + "\"jobsPlaced\": %d, \"jobsFinished\": %d, \"estimatedStarts\": %d, "
+                            + "\"avgWaiting\": %.2f, \"avgExecution\": %.2f, \"avgTurnaround\": %.2f, "
+                            + "\"utilisation\": %.4f, \"cost\": %s}", values);
+            if (tid < numOfType) {
+                json.append(json.charAt(json.length() - 1) == '[' ? "\n    " : ",\n    ").append(entry);
+            } else {
+                json.append("\n  ],\n  \"all\": ").append(entry).append("\n}\n");
+            }
+        }
+
+        // timeline in time order, events of the same time keep the order they were seen
+        Integer[] order = new Integer[numOfEvent];
+        for (int i = 0; i < numOfEvent; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt(i -> eventTime[i]));
+        StringBuilder timeline = new StringBuilder("time,event,jobId,serverType,serverId\n");
+        for (int i : order) {
+            int row = eventRow[i];
+            timeline.append(eventTime[i]).append(',').append(EVENT_NAMES[eventKind[i]]).append(',')
+                    .append(eventJob[i] < 0 ? "" : String.valueOf(eventJob[i])).append(',')
+                    .append(table.getType(row)).append(',').append(table.getServerId(row)).append('\n');
+        }
+
+        writeFile(prefix + ".csv", csv.toString());
+        writeFile(prefix + ".json", json.toString());
+        writeFile(prefix + "-timeline.csv", timeline.toString());
+    }
+
+    private static void writeFile(String path, String content) {
+        try (Writer writer = new FileWriter(path)) {
+            writer.write(content);
+            System.out.println("report written to " + path);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 }
 
@@ -363,10 +1799,10 @@ class Record {
     private int numOfLooping;
     private int numOfServerType;
 
-    public Record(List<ServerType> list) {
-        this.serverType = list.get(0).getType();
-        this.numOfServerType = list.size();
-        this.numOfIniCores = list.get(0).getCores();
+    public Record(String serverType, int numOfServerType, int numOfIniCores) {
+        this.serverType = serverType;
+        this.numOfServerType = numOfServerType;
+        this.numOfIniCores = numOfIniCores;
         this.numOfLooping = 0;
     }
 
@@ -386,8 +1822,8 @@ class Record {
         return numOfServerType;
     }
 
-    public boolean isTypeInList(List<ServerType> list) {
-        return list.stream().anyMatch(s -> s.getType().equals(getServerType()));
+    public boolean isTypeInView(ServerTable table) {
+        return table.isTypeInView(getServerType());
     }
 
     public boolean isSameType(String compType) {